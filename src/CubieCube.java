@@ -1,5 +1,8 @@
 package rubikscube;
 
+import java.util.Arrays;
+import java.util.Random;
+
 //This class is to transform the sticker based net layout into cubie based representation
 
 public class CubieCube {
@@ -74,6 +77,25 @@ static final int[][] EDGE_POS = {
     public CubieCube clone() { return new CubieCube(this); }
 
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CubieCube)) return false;
+        CubieCube c = (CubieCube) o;
+        return Arrays.equals(cp, c.cp) && Arrays.equals(co, c.co)
+            && Arrays.equals(ep, c.ep) && Arrays.equals(eo, c.eo);
+    }
+
+
+    @Override
+    public int hashCode() {
+        int h = Arrays.hashCode(cp);
+        h = 31 * h + Arrays.hashCode(co);
+        h = 31 * h + Arrays.hashCode(ep);
+        return 31 * h + Arrays.hashCode(eo);
+    }
+
+
     
     // Orientation constraint checks
     
@@ -94,6 +116,56 @@ static final int[][] EDGE_POS = {
         return e % 2 == 0;
     }
 
+    // Corner and edge permutation parity must match: a face turn is a
+    // 4-cycle on both, so it flips both parities together
+
+    public boolean parityOK() {
+        return permutationParity(cp) == permutationParity(ep);
+    }
+
+
+    private static int permutationParity(int[] p) {
+        int s = 0;
+        for (int i = 0; i < p.length; i++)
+            for (int j = i + 1; j < p.length; j++)
+                if (p[i] > p[j]) s ^= 1;
+        return s;
+    }
+
+
+    // Every cubie appears exactly once
+    public boolean permutationOK() {
+        return isPermutation(cp) && isPermutation(ep);
+    }
+
+
+    private static boolean isPermutation(int[] p) {
+        int seen = 0;
+        for (int x : p) {
+            if (x < 0 || x >= p.length || (seen & (1 << x)) != 0) return false;
+            seen |= 1 << x;
+        }
+        return true;
+    }
+
+
+    /**
+     * Throws IllegalStateException if this cube cannot be reached from
+     * solved, so a bad input is rejected before it reaches the search.
+     */
+    public void checkSolvable() {
+        if (!permutationOK())
+            throw new IllegalStateException("Duplicate or missing cubie");
+        if (!orientationConstraintOK()) {
+            int s = 0;
+            for (int x : co) s += x;
+            throw new IllegalStateException(s % 3 != 0 ? "Twisted corner" : "Flipped edge");
+        }
+        if (!parityOK())
+            throw new IllegalStateException("Permutation parity (two cubies swapped)");
+    }
+
+
     //Check if the cube is solved
     public boolean isSolved() {
         for (int i = 0; i < 8; i++)
@@ -127,6 +199,44 @@ static final int[][] EDGE_POS = {
     }
 
 
+    // Group operations
+    //
+    // A cube is the permutation taking solved to it, and moves act on the
+    // right: applyMove(m) is the same as multiply(<cube of move m>).
+    // So a.multiply(b) is "a, then the moves of b", and a.multiply(a.inverse())
+    // is solved.
+
+    /** this * b (apply b after this) */
+    public CubieCube multiply(CubieCube b) {
+        CubieCube r = new CubieCube();
+        for (int i = 0; i < 8; i++) {
+            r.cp[i] = cp[b.cp[i]];
+            r.co[i] = (co[b.cp[i]] + b.co[i]) % 3;
+        }
+        for (int i = 0; i < 12; i++) {
+            r.ep[i] = ep[b.ep[i]];
+            r.eo[i] = eo[b.ep[i]] ^ b.eo[i];
+        }
+        return r;
+    }
+
+
+    /** The cube c with this * c == solved */
+    public CubieCube inverse() {
+        CubieCube r = new CubieCube();
+        for (int i = 0; i < 8; i++) {
+            r.cp[cp[i]] = i;
+            r.co[cp[i]] = (3 - co[i]) % 3;
+        }
+        for (int i = 0; i < 12; i++) {
+            r.ep[ep[i]] = i;
+            r.eo[ep[i]] = eo[i];
+        }
+        return r;
+    }
+
+
+
     // Cycle helpers
 
     private void cycleCorners(int a,int b,int c,int d,
@@ -171,8 +281,8 @@ static final int[][] EDGE_POS = {
 
 
     private void moveF() {
-        cycleCorners(0,1,5,4, 1,2,1,2);
-        cycleEdges(1,9,5,8, 1,1,1,1);
+        cycleCorners(0,4,5,1, 1,2,1,2);
+        cycleEdges(1,8,5,9, 1,1,1,1);
     }
 
 
@@ -183,14 +293,14 @@ static final int[][] EDGE_POS = {
 
 
     private void moveL() {
-        cycleCorners(1,2,6,5, 2,1,2,1);
-        cycleEdges(2,10,6,9, 0,0,0,0);
+        cycleCorners(1,5,6,2, 1,2,1,2);
+        cycleEdges(2,9,6,10, 0,0,0,0);
     }
 
 
     private void moveB() {
-        cycleCorners(2,3,7,6, 1,2,1,2);
-        cycleEdges(3,11,7,10, 1,1,1,1);
+        cycleCorners(2,6,7,3, 1,2,1,2);
+        cycleEdges(3,10,7,11, 1,1,1,1);
     }
 
 
@@ -275,6 +385,36 @@ static final int[][] EDGE_POS = {
         }
 
 
+        // multiply must agree with applyMove, and a * a^-1 must be solved
+        Random rnd = new Random(225);
+        for (int trial = 0; trial < 1000; trial++) {
+            CubieCube a = new CubieCube();
+            CubieCube b = new CubieCube();
+            CubieCube ab = new CubieCube();
+            for (int k = 0; k < 20; k++) {
+                int m = rnd.nextInt(18);
+                a.applyMove(m);
+                ab.applyMove(m);
+            }
+            for (int k = 0; k < 20; k++) {
+                int m = rnd.nextInt(18);
+                b.applyMove(m);
+                ab.applyMove(m);
+            }
+
+            if (!a.multiply(b).equals(ab)) {
+                System.out.println("[FAIL] multiply disagrees with applyMove");
+                ok = false;
+                break;
+            }
+            if (!a.multiply(a.inverse()).isSolved() || !a.inverse().multiply(a).isSolved()) {
+                System.out.println("[FAIL] a * a^-1 != identity");
+                ok = false;
+                break;
+            }
+        }
+
+
         if (ok)
             System.out.println("[SELFTEST] CubieCube mapping OK.");
         else
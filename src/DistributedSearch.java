@@ -0,0 +1,444 @@
+package rubikscube;
+
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * IDA* split across several worker JVMs talking to a coordinator over
+ * localhost TCP.
+ *
+ * The coordinator enumerates every move sequence of length frontierDepth
+ * (the root frontier) once. For each bound it hands those subtrees out as
+ * jobs, one at a time to whichever worker is free, and each worker runs
+ * the normal Solver.dfsIda below its prefix. Workers answer with the
+ * minimum f that exceeded the bound; the smallest over all jobs is the
+ * next bound. When a worker finds a solution the coordinator sends CANCEL
+ * to every worker and stops.
+ *
+ * Protocol (one line per message, space separated):
+ *
+ *   coordinator -> worker   START <40 ints: cp co ep eo>
+ *                           JOB <id> <bound> <prefix moves...>
+ *                           CANCEL
+ *                           QUIT
+ *
+ *   worker -> coordinator   DONE <id> <min exceeded f>
+ *                           FOUND <id> <moves...>
+ *                           CANCELLED <id>
+ */
+public class DistributedSearch {
+
+
+    // Coordinator
+
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+
+    // jobs that came back CANCELLED (for selfTest)
+    private static final AtomicInteger cancelledJobs = new AtomicInteger();
+
+    /**
+     * Solve start using `workers` worker processes started on this
+     * machine. Returns the moves, or an empty list if nothing was found
+     * within bound 35.
+     */
+    public static List<Integer> solve(CubieCube start, int workers, int frontierDepth)
+            throws IOException, InterruptedException {
+
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one worker, got " + workers);
+        }
+        if (frontierDepth < 0) {
+            throw new IllegalArgumentException("Frontier depth must be >= 0, got " + frontierDepth);
+        }
+        start.checkSolvable();
+
+        // a solution shorter than the frontier never reaches a worker
+        List<Integer> shallow = shallowSolution(start, frontierDepth);
+        if (shallow != null) return shallow;
+
+        List<int[]> frontier = new ArrayList<>();
+        enumerate(new int[frontierDepth], 0, frontier);
+
+        List<Process> procs = new ArrayList<>();
+        List<Conn> conns = new ArrayList<>();
+
+        try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+
+            // workers connect to whatever loopback address the server got (::1
+            // with preferIPv6Addresses), not a hard-coded 127.0.0.1
+            List<String> cmd = workerCommand(server.getInetAddress().getHostAddress(),
+                    server.getLocalPort());
+            for (int i = 0; i < workers; i++) {
+                procs.add(new ProcessBuilder(cmd).inheritIO().start());
+            }
+
+            // never wait forever for a worker that died or never started
+            server.setSoTimeout(500);
+            long deadline = System.nanoTime() + CONNECT_TIMEOUT_MS * 1_000_000L;
+
+            String startMsg = "START " + encode(start);
+            while (conns.size() < workers) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    for (Process p : procs) {
+                        if (!p.isAlive()) {
+                            throw new IOException("Worker exited with code " + p.exitValue()
+                                    + " before connecting");
+                        }
+                    }
+                    if (System.nanoTime() > deadline) {
+                        throw new IOException("Only " + conns.size() + " of " + workers
+                                + " workers connected within " + CONNECT_TIMEOUT_MS + " ms");
+                    }
+                    continue;
+                }
+
+                Conn c = new Conn(socket);
+                c.send(startMsg);
+                conns.add(c);
+            }
+
+            return search(start, frontier, conns);
+
+        } finally {
+            for (Conn c : conns) {
+                try {
+                    c.send("QUIT");
+                } catch (IOException ignored) {
+                    // worker already gone
+                }
+                c.close();
+            }
+            for (Process p : procs) {
+                if (!p.waitFor(5, TimeUnit.SECONDS)) p.destroyForcibly();
+            }
+        }
+    }
+
+
+    // Same java, classpath and heap settings as this JVM, and the same
+    // table directory so workers load the tables instead of building them
+    private static List<String> workerCommand(String host, int port) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-Xmx") || arg.startsWith("-Xms") || arg.startsWith("-Xss"))
+                cmd.add(arg);
+        }
+        String tables = System.getProperty("rubikscube.tables");
+        if (tables != null) cmd.add("-Drubikscube.tables=" + tables);
+
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("rubikscube.Solver");
+        cmd.add("--worker");
+        cmd.add(host);
+        cmd.add(String.valueOf(port));
+        return cmd;
+    }
+
+
+    private static List<Integer> search(CubieCube start, List<int[]> frontier, List<Conn> conns)
+            throws InterruptedException {
+
+        ExecutorService pool = Executors.newFixedThreadPool(conns.size());
+        try {
+            int bound = Solver.heuristic(start, PruningTables.readyTier());
+
+            while (bound <= 35) {
+                ConcurrentLinkedQueue<Integer> jobs = new ConcurrentLinkedQueue<>();
+                for (int i = 0; i < frontier.size(); i++) jobs.add(i);
+
+                AtomicInteger nextBound = new AtomicInteger(Integer.MAX_VALUE);
+                AtomicReference<List<Integer>> found = new AtomicReference<>();
+                final int b = bound;
+
+                List<Future<?>> running = new ArrayList<>();
+                for (Conn c : conns) {
+                    running.add(pool.submit(() -> {
+                        runJobs(c, b, frontier, jobs, nextBound, found, conns);
+                        return null;
+                    }));
+                }
+                for (Future<?> f : running) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException("Worker failed", e.getCause());
+                    }
+                }
+
+                if (found.get() != null) return found.get();
+                if (nextBound.get() == Integer.MAX_VALUE) break;
+
+                bound = nextBound.get();  // jump to next bound
+            }
+            return Collections.emptyList();
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    // One coordinator thread per worker: keep it fed until the queue is
+    // empty or someone found a solution
+    private static void runJobs(Conn c, int bound, List<int[]> frontier,
+                                Queue<Integer> jobs, AtomicInteger nextBound,
+                                AtomicReference<List<Integer>> found, List<Conn> conns)
+            throws IOException {
+
+        while (found.get() == null) {
+            Integer id = jobs.poll();
+            if (id == null) return;
+
+            StringBuilder sb = new StringBuilder("JOB ").append(id).append(' ').append(bound);
+            for (int m : frontier.get(id)) sb.append(' ').append(m);
+            c.send(sb.toString());
+
+            String[] reply = c.receive().split(" ");
+            switch (reply[0]) {
+                case "DONE":
+                    int t = Integer.parseInt(reply[2]);
+                    nextBound.accumulateAndGet(t, Math::min);
+                    break;
+
+                case "FOUND":
+                    List<Integer> moves = new ArrayList<>();
+                    for (int i = 2; i < reply.length; i++) moves.add(Integer.parseInt(reply[i]));
+                    if (found.compareAndSet(null, moves)) {
+                        for (Conn other : conns) {
+                            if (other != c) other.send("CANCEL");
+                        }
+                    }
+                    return;
+
+                case "CANCELLED":
+                    cancelledJobs.incrementAndGet();
+                    return;
+
+                default:
+                    throw new IOException("Bad reply from worker: " + String.join(" ", reply));
+            }
+        }
+    }
+
+
+    // Shortest solution of length < depth, by plain iterative deepening
+    private static List<Integer> shallowSolution(CubieCube start, int depth) {
+        for (int d = 0; d < depth; d++) {
+            int[] moves = new int[d];
+            List<int[]> all = new ArrayList<>();
+            enumerate(moves, 0, all);
+            for (int[] seq : all) {
+                CubieCube c = new CubieCube(start);
+                for (int m : seq) c.applyMove(m);
+                if (c.isSolved()) {
+                    List<Integer> out = new ArrayList<>();
+                    for (int m : seq) out.add(m);
+                    return out;
+                }
+            }
+        }
+        return null;
+    }
+
+
+    // All move sequences of moves.length with no face turned twice in a row
+    private static void enumerate(int[] moves, int i, List<int[]> out) {
+        if (i == moves.length) {
+            out.add(moves.clone());
+            return;
+        }
+        for (int m = 0; m < 18; m++) {
+            if (i > 0 && m / 3 == moves[i - 1] / 3) continue;
+            moves[i] = m;
+            enumerate(moves, i + 1, out);
+        }
+    }
+
+
+
+    // Worker
+
+    /**
+     * Connect to a coordinator and run jobs until QUIT or the connection
+     * closes. Searching happens on its own thread so CANCEL can be read
+     * while a job is running.
+     */
+    public static void worker(String host, int port) throws IOException {
+        try (Conn c = new Conn(new Socket(host, port))) {
+            ExecutorService searcher = Executors.newSingleThreadExecutor();
+            AtomicBoolean cancel = new AtomicBoolean();
+            CubieCube start = null;
+
+            try {
+                String line;
+                while ((line = c.receiveOrNull()) != null) {
+                    String[] msg = line.split(" ");
+
+                    if (msg[0].equals("START")) {
+                        start = decode(msg, 1);
+                    } else if (msg[0].equals("JOB")) {
+                        // cancel is never cleared: after a solution the
+                        // coordinator only sends QUIT, and a JOB that raced
+                        // with CANCEL should come back CANCELLED at once
+                        CubieCube s = start;
+                        searcher.submit(() -> runJob(c, s, msg, cancel));
+                    } else if (msg[0].equals("CANCEL")) {
+                        cancel.set(true);
+                    } else if (msg[0].equals("QUIT")) {
+                        break;
+                    }
+                }
+            } finally {
+                cancel.set(true);
+                searcher.shutdownNow();
+            }
+        }
+    }
+
+
+    private static void runJob(Conn c, CubieCube start, String[] msg, AtomicBoolean cancel) {
+        int id = Integer.parseInt(msg[1]);
+        int bound = Integer.parseInt(msg[2]);
+
+        CubieCube cube = new CubieCube(start);
+        List<Integer> path = new ArrayList<>();
+        for (int i = 3; i < msg.length; i++) {
+            int m = Integer.parseInt(msg[i]);
+            cube.applyMove(m);
+            path.add(m);
+        }
+        int last = path.isEmpty() ? -1 : path.get(path.size() - 1);
+
+        int tier = PruningTables.readyTier();
+        int t = Solver.dfsIda(cube, path.size(), bound, last, path,
+                              PruningTables.distances(cube, tier),
+                              new Solver.Search(tier, cancel));
+
+        try {
+            if (t == Solver.FOUND) {
+                StringBuilder sb = new StringBuilder("FOUND ").append(id);
+                for (int m : path) sb.append(' ').append(m);
+                c.send(sb.toString());
+            } else if (t == Solver.CANCELLED) {
+                c.send("CANCELLED " + id);
+            } else {
+                c.send("DONE " + id + " " + t);
+            }
+        } catch (IOException e) {
+            cancel.set(true);
+        }
+    }
+
+
+
+    // Local check: two workers on this machine must solve short scrambles
+    // through the whole protocol (frontier depth 2, so the workers really
+    // search), and leave no process behind.
+
+    public static boolean selfTest() throws IOException, InterruptedException {
+        boolean ok = true;
+        ScrambleGenerator gen = new ScrambleGenerator(225);
+
+        for (int trial = 0; trial < 3; trial++) {
+            int[] scramble = gen.randomWalk(5);
+            CubieCube c = ScrambleGenerator.apply(scramble);
+
+            List<Integer> sol = solve(c, 2, 2);
+            CubieCube check = new CubieCube(c);
+            for (int m : sol) check.applyMove(m);
+
+            if (sol.isEmpty() || !check.isSolved()) {
+                System.out.println("[FAIL] distributed solve of " + Arrays.toString(scramble)
+                        + " gave " + sol);
+                ok = false;
+            }
+        }
+
+        System.out.println("[SELFTEST] jobs cancelled after a solution: " + cancelledJobs.get());
+        if (ok)
+            System.out.println("[SELFTEST] DistributedSearch OK.");
+        else
+            System.out.println("[SELFTEST] DistributedSearch has ERRORS.");
+        return ok;
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        selfTest();
+    }
+
+
+
+    // Wire helpers
+
+    private static String encode(CubieCube c) {
+        StringBuilder sb = new StringBuilder();
+        for (int[] a : new int[][]{c.cp, c.co, c.ep, c.eo})
+            for (int x : a) sb.append(x).append(' ');
+        return sb.toString().trim();
+    }
+
+
+    private static CubieCube decode(String[] msg, int from) {
+        CubieCube c = new CubieCube();
+        int k = from;
+        for (int[] a : new int[][]{c.cp, c.co, c.ep, c.eo})
+            for (int i = 0; i < a.length; i++) a[i] = Integer.parseInt(msg[k++]);
+        return c;
+    }
+
+
+    private static final class Conn implements Closeable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+
+        Conn(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+        }
+
+        synchronized void send(String line) throws IOException {
+            out.println(line);
+            out.flush();
+            if (out.checkError()) throw new IOException("Connection closed");
+        }
+
+        String receive() throws IOException {
+            String line = in.readLine();
+            if (line == null) throw new IOException("Connection closed");
+            return line;
+        }
+
+        String receiveOrNull() throws IOException {
+            return in.readLine();
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
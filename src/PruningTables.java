@@ -0,0 +1,673 @@
+package rubikscube;
+
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntBinaryOperator;
+
+
+/**
+ * Pattern-database heuristics, built in tiers on a background thread so
+ * the solver can start answering with the cheap Solver.heuristic right
+ * away and pick up stronger estimates as they become ready.
+ *
+ *   tier 0 – nothing built yet (Solver.heuristic only)
+ *   tier 1 – corner twist (3^7), edge flip (2^11), corner permutation (8!)
+ *   tier 2 – corner twist x edge flip (3^7 * 2^11 = 4,478,976)
+ *   tier 3 – full corners, permutation x twist (8! * 3^7 = 88,179,840)
+ *
+ * Each table stores the exact number of moves needed to solve that part of
+ * the cube, so every lookup is admissible and their max is too. Tables are
+ * filled by breadth-first search over move tables on the coordinates (see
+ * the coordinate section below).
+ *
+ * Tier 1 tables are 4 bits per entry. The two big ones only store the
+ * distance mod 3 in 2 bits (Mod3Table), which halves their memory: the
+ * exact distance is found once for the search root by walking down to
+ * solved, and after that each child's distance follows from its parent's
+ * (distances(c, tier, parent)). dfsIda carries those distances down the
+ * path, packed into one int.
+ *
+ * If the system property rubikscube.tables names a directory, tables are
+ * loaded from it when present and saved to it after they are built. Each
+ * file starts with a header (format, table name, entry layout and count);
+ * a file whose header does not match is never used.
+ */
+public final class PruningTables {
+
+
+    private PruningTables() {}
+
+
+    static final int N_TWIST = 2187;      // 3^7
+    static final int N_FLIP = 2048;       // 2^11
+    static final int N_CPERM = 40320;     // 8!
+
+
+    /** Version of the cache file layout; bump when a table's meaning changes */
+    public static final int FORMAT = 1;
+
+    private static final int MAGIC = 0x52435054;   // "RCPT"
+
+
+    // Move tables: xMove[coord][m] is the coordinate after move m
+    static short[][] twistMove;
+    static short[][] flipMove;
+    static char[][] cpermMove;     // 40320 does not fit in a short
+
+
+    private static volatile NibbleTable twist, flip, cperm;
+    private static volatile Mod3Table twistFlip;
+    private static volatile Mod3Table corners;
+
+    private static volatile int tier = 0;
+    private static Thread builder;
+
+    private static final long T0 = System.nanoTime();
+
+
+    /** Highest tier whose tables are all ready */
+    public static int readyTier() { return tier; }
+
+
+    /** Start building the tables on a daemon thread (only the first call does anything) */
+    public static void startBackground() {
+        startBackground(true);
+    }
+
+
+    /**
+     * With build == false tables are never built here, only loaded from
+     * the rubikscube.tables directory, waiting for each file until some
+     * other process (the distributed coordinator) has saved it.
+     */
+    public static synchronized void startBackground(boolean build) {
+        if (builder != null) return;
+
+        if (!build && System.getProperty("rubikscube.tables") == null) {
+            System.err.println("[TABLES] no rubikscube.tables directory to load from, staying at tier 0");
+            return;
+        }
+
+        builder = new Thread(() -> {
+            try {
+                ensureMoveTables();
+                twist = load("twist", new NibbleTable(N_TWIST), PruningTables::twistNext, build);
+                flip  = load("flip", new NibbleTable(N_FLIP), PruningTables::flipNext, build);
+                cperm = load("cperm", new NibbleTable(N_CPERM), PruningTables::cpermNext, build);
+                ready(1);
+
+                twistFlip = load("twistflip3", new Mod3Table(N_TWIST * N_FLIP),
+                                 PruningTables::twistFlipNext, build);
+                ready(2);
+
+                corners = load("corners3", new Mod3Table(N_CPERM * N_TWIST),
+                               PruningTables::cornersNext, build);
+                ready(3);
+
+            } catch (InterruptedException e) {
+                // waiting for a table file; the process is going away
+
+            } catch (OutOfMemoryError e) {
+                System.err.println("[TABLES] out of memory at tier " + (tier + 1)
+                        + ", staying at tier " + tier);
+            }
+        }, "pruning-tables");
+
+        builder.setDaemon(true);
+        builder.setPriority(Thread.MIN_PRIORITY);
+        builder.start();
+    }
+
+
+    /** Build every tier and wait for them (for tests and table generation) */
+    public static void buildAll() throws InterruptedException {
+        startBackground();
+        builder.join();
+    }
+
+
+    private static void ready(int t) {
+        tier = t;
+        System.err.printf("[TABLES] tier %d ready after %d ms%n", t, millisSinceStart());
+    }
+
+
+    static long millisSinceStart() {
+        return (System.nanoTime() - T0) / 1_000_000;
+    }
+
+
+    /**
+     * Largest table estimate for c using tables up to tier t
+     * (0 when t == 0). dist is distances(c, t, ...) for the same cube.
+     */
+    public static int estimate(CubieCube c, int t, int dist) {
+        if (t <= 0) return 0;
+
+        int h = Math.max(twist.get(twist(c)), Math.max(flip.get(flip(c)), cperm.get(cperm(c))));
+        return Math.max(h, Math.max(dist & 0xff, dist >>> 8));
+    }
+
+
+    /** Same, for a cube with no known parent (walks the mod-3 tables down to solved) */
+    public static int estimate(CubieCube c, int t) {
+        return estimate(c, t, distances(c, t));
+    }
+
+
+    // Exact distances in the mod-3 tables, packed as
+    // twist x flip in bits 0..7 and corners in bits 8..15 (0 if not in tier t)
+
+    /** For a search root: walk each mod-3 table down to solved */
+    public static int distances(CubieCube c, int t) {
+        int dist = 0;
+        if (t >= 2) {
+            dist |= twistFlip.distance(twist(c) * N_FLIP + flip(c), PruningTables::twistFlipNext);
+        }
+        if (t >= 3) {
+            dist |= corners.distance(cperm(c) * N_TWIST + twist(c), PruningTables::cornersNext) << 8;
+        }
+        return dist;
+    }
+
+
+    /** For a child of a cube whose distances are parent: one step from there */
+    public static int distances(CubieCube c, int t, int parent) {
+        if (t < 2) return 0;
+
+        int tw = twist(c);
+        int dist = twistFlip.step(parent & 0xff, tw * N_FLIP + flip(c));
+        if (t >= 3) {
+            dist |= corners.step(parent >>> 8, cperm(c) * N_TWIST + tw) << 8;
+        }
+        return dist;
+    }
+
+
+
+    // Coordinates
+    //
+    // twist: co[0..6] read as a base-3 number (co[7] follows from the sum)
+    // flip:  eo[0..10] read as a base-2 number (eo[11] follows from the sum)
+    // cperm: rank of cp among all 8! permutations (Lehmer code)
+
+    static int twist(CubieCube c) {
+        int x = 0;
+        for (int i = 0; i < 7; i++) x = x * 3 + c.co[i];
+        return x;
+    }
+
+
+    static void setTwist(CubieCube c, int x) {
+        int s = 0;
+        for (int i = 6; i >= 0; i--) {
+            c.co[i] = x % 3;
+            s += c.co[i];
+            x /= 3;
+        }
+        c.co[7] = (3 - s % 3) % 3;
+    }
+
+
+    static int flip(CubieCube c) {
+        int x = 0;
+        for (int i = 0; i < 11; i++) x = x * 2 + c.eo[i];
+        return x;
+    }
+
+
+    static void setFlip(CubieCube c, int x) {
+        int s = 0;
+        for (int i = 10; i >= 0; i--) {
+            c.eo[i] = x & 1;
+            s ^= c.eo[i];
+            x >>= 1;
+        }
+        c.eo[11] = s;
+    }
+
+
+    static int cperm(CubieCube c) {
+        int x = 0;
+        for (int i = 0; i < 8; i++) {
+            int smaller = 0;
+            for (int j = i + 1; j < 8; j++)
+                if (c.cp[j] < c.cp[i]) smaller++;
+            x = x * (8 - i) + smaller;
+        }
+        return x;
+    }
+
+
+    static void setCperm(CubieCube c, int x) {
+        int[] digits = new int[8];
+        for (int i = 7; i >= 0; i--) {
+            digits[i] = x % (8 - i);
+            x /= (8 - i);
+        }
+
+        boolean[] used = new boolean[8];
+        for (int i = 0; i < 8; i++) {
+            int k = digits[i];
+            for (int v = 0; v < 8; v++) {
+                if (used[v]) continue;
+                if (k-- == 0) {
+                    c.cp[i] = v;
+                    used[v] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+
+    static synchronized void ensureMoveTables() {
+        if (cpermMove != null) return;
+
+        twistMove = new short[N_TWIST][18];
+        flipMove = new short[N_FLIP][18];
+        cpermMove = new char[N_CPERM][18];
+
+        CubieCube c = new CubieCube();
+        for (int x = 0; x < N_TWIST; x++) {
+            for (int m = 0; m < 18; m++) {
+                setTwist(c, x);
+                c.applyMove(m);
+                twistMove[x][m] = (short) twist(c);
+            }
+        }
+
+        c = new CubieCube();
+        for (int x = 0; x < N_FLIP; x++) {
+            for (int m = 0; m < 18; m++) {
+                setFlip(c, x);
+                c.applyMove(m);
+                flipMove[x][m] = (short) flip(c);
+            }
+        }
+
+        c = new CubieCube();
+        for (int x = 0; x < N_CPERM; x++) {
+            for (int m = 0; m < 18; m++) {
+                setCperm(c, x);
+                c.applyMove(m);
+                cpermMove[x][m] = (char) cperm(c);
+            }
+        }
+    }
+
+
+    private static int twistNext(int x, int m) { return twistMove[x][m]; }
+    private static int flipNext(int x, int m)  { return flipMove[x][m]; }
+    private static int cpermNext(int x, int m) { return cpermMove[x][m]; }
+
+    private static int twistFlipNext(int x, int m) {
+        return twistMove[x / N_FLIP][m] * N_FLIP + flipMove[x % N_FLIP][m];
+    }
+
+    private static int cornersNext(int x, int m) {
+        return cpermMove[x / N_TWIST][m] * N_TWIST + twistMove[x % N_TWIST][m];
+    }
+
+
+
+    // Breadth-first fill
+    //
+    // Index 0 is solved for every coordinate above. Layer d is found by
+    // scanning for entries holding d (d % 3 in a Mod3Table) and expanding
+    // them; once more than half the table is filled it is cheaper to scan
+    // the empty entries instead and look for a neighbor at d.
+    //
+    // In a Mod3Table the forward scan also re-expands layers d-3, d-6, ...
+    // That only costs time: their neighbors are all filled already.
+
+    static <T extends Table> T bfs(T t, IntBinaryOperator next) {
+        int size = t.size;
+        t.set(0, 0);
+        int filled = 1;
+
+        for (int d = 0; filled < size && t.stored(d + 1) != t.empty(); d++) {
+            boolean backward = filled > size / 2;
+            int cur = t.stored(d);
+            int added = 0;
+
+            for (int x = 0; x < size; x++) {
+                if (backward) {
+                    if (t.get(x) != t.empty()) continue;
+                    for (int m = 0; m < 18; m++) {
+                        if (t.get(next.applyAsInt(x, m)) == cur) {
+                            t.set(x, t.stored(d + 1));
+                            added++;
+                            break;
+                        }
+                    }
+                } else {
+                    if (t.get(x) != cur) continue;
+                    for (int m = 0; m < 18; m++) {
+                        int y = next.applyAsInt(x, m);
+                        if (t.get(y) == t.empty()) {
+                            t.set(y, t.stored(d + 1));
+                            added++;
+                        }
+                    }
+                }
+            }
+
+            if (added == 0) break;
+            filled += added;
+        }
+        return t;
+    }
+
+
+    abstract static class Table {
+        final int size;
+        final byte[] data;
+
+        Table(int size, int bytes) {
+            this.size = size;
+            this.data = new byte[bytes];
+            Arrays.fill(data, (byte) 0xff);   // every entry empty
+        }
+
+        abstract int get(int i);
+        abstract void set(int i, int v);
+
+        /** Value of a not-yet-reached entry */
+        abstract int empty();
+
+        /** What gets stored for distance d */
+        abstract int stored(int d);
+
+        /** Bits per entry, recorded in the cache header */
+        abstract int bits();
+    }
+
+
+    /** 4 bits per entry holding the distance itself */
+    static final class NibbleTable extends Table {
+        NibbleTable(int size) {
+            super(size, (size + 1) / 2);
+        }
+
+        @Override
+        int get(int i) {
+            return (data[i >> 1] >> ((i & 1) << 2)) & 15;
+        }
+
+        @Override
+        void set(int i, int v) {
+            int shift = (i & 1) << 2;
+            data[i >> 1] = (byte) ((data[i >> 1] & ~(15 << shift)) | (v << shift));
+        }
+
+        @Override int empty() { return 15; }
+        @Override int stored(int d) { return d; }
+        @Override int bits() { return 4; }
+    }
+
+
+    /**
+     * 2 bits per entry holding the distance mod 3, half the size of a
+     * NibbleTable. One move changes the distance by at most 1, so a
+     * neighbor's mod-3 value is enough to tell -1, 0 or +1 (step), and the
+     * distance of an arbitrary entry is found by walking down to solved
+     * (distance).
+     */
+    static final class Mod3Table extends Table {
+        Mod3Table(int size) {
+            super(size, (size + 3) / 4);
+        }
+
+        @Override
+        int get(int i) {
+            return (data[i >> 2] >> ((i & 3) << 1)) & 3;
+        }
+
+        @Override
+        void set(int i, int v) {
+            int shift = (i & 3) << 1;
+            data[i >> 2] = (byte) ((data[i >> 2] & ~(3 << shift)) | (v << shift));
+        }
+
+        @Override int empty() { return 3; }
+        @Override int stored(int d) { return d % 3; }
+        @Override int bits() { return 2; }
+
+
+        /** Exact distance of x given the exact distance of a neighbor */
+        int step(int neighborDist, int x) {
+            int diff = (get(x) - neighborDist % 3 + 3) % 3;
+            if (diff == 0) return neighborDist;
+            return diff == 1 ? neighborDist + 1 : neighborDist - 1;
+        }
+
+
+        /**
+         * Exact distance of x, by following neighbors whose value is one
+         * less (mod 3) down to solved. Neighbors are within 1 of x, so
+         * one less mod 3 is exactly one less.
+         */
+        int distance(int x, IntBinaryOperator next) {
+            int d = 0;
+            while (x != 0) {
+                int want = (get(x) + 2) % 3;
+                int y = -1;
+                for (int m = 0; m < 18 && y < 0; m++) {
+                    int n = next.applyAsInt(x, m);
+                    if (get(n) == want) y = n;
+                }
+                if (y < 0) throw new IllegalStateException("Mod-3 table is inconsistent at " + x);
+                x = y;
+                d++;
+            }
+            return d;
+        }
+    }
+
+
+
+    // Cache on disk
+
+    // A cache that cannot be read or written only costs time: the table
+    // is built (or kept) in memory either way.
+
+    private static <T extends Table> T load(String name, T empty, IntBinaryOperator next,
+                                            boolean build) throws InterruptedException {
+        String dir = System.getProperty("rubikscube.tables");
+        File f = dir == null ? null : new File(dir, name + ".prun");
+
+        if (f != null) {
+            String problem = read(f, name, empty);
+
+            // load-only: wait for whoever builds it (files appear by rename,
+            // complete, and replace a stale one)
+            while (!build && problem != null) {
+                Thread.sleep(500);
+                problem = read(f, name, empty);
+            }
+
+            if (problem == null) {
+                System.err.printf("[TABLES] %s loaded after %d ms%n", name, millisSinceStart());
+                return empty;
+            }
+            if (f.exists()) {
+                System.err.println("[TABLES] not using " + f + " (" + problem + "), building it instead");
+            }
+        }
+
+        T t = bfs(empty, next);
+        System.err.printf("[TABLES] %s built after %d ms (%d KB)%n",
+                          name, millisSinceStart(), t.data.length / 1024);
+
+        if (f != null) save(f, name, t);
+        return t;
+    }
+
+
+    // Fill t from f if its header is exactly this table's. Returns null on
+    // success, otherwise why not, with t left empty
+    private static String read(File f, String name, Table t) {
+        if (!f.isFile()) return "missing";
+
+        String problem;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            problem = readTable(in, name, t);
+        } catch (IOException e) {
+            problem = "unreadable: " + e.getMessage();
+        }
+        if (problem != null) Arrays.fill(t.data, (byte) 0xff);
+        return problem;
+    }
+
+
+    private static String readTable(DataInputStream in, String name, Table t) throws IOException {
+        if (in.readInt() != MAGIC) return "not a table file";
+        int format = in.readInt();
+        if (format != FORMAT) return "format " + format + ", expected " + FORMAT;
+        if (!in.readUTF().equals(name)) return "holds a different table";
+        if (in.readByte() != t.bits() || in.readInt() != t.size) return "wrong layout";
+
+        in.readFully(t.data);
+        if (in.read() != -1) return "trailing data";
+        return null;
+    }
+
+
+    // Written to a temporary file and renamed, so a reader (another JVM
+    // sharing the directory) never sees a half-written table
+    private static void save(File f, String name, Table t) {
+        File tmp = null;
+        try {
+            File dir = f.getAbsoluteFile().getParentFile();
+            dir.mkdirs();
+            tmp = File.createTempFile(f.getName(), ".tmp", dir);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeUTF(name);
+                out.writeByte(t.bits());
+                out.writeInt(t.size);
+                out.write(t.data);
+            }
+            Files.move(tmp.toPath(), f.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[TABLES] could not save " + f + " (" + e.getMessage() + ")");
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+
+
+    // Equivalence check: every mod-3 table must give exactly the distances
+    // of the full 4-bit table, both walked down from scratch and stepped
+    // along random move sequences the way dfsIda does it.
+
+    public static boolean selfTest(boolean full) {
+        ensureMoveTables();
+        boolean ok = check("twistflip", N_TWIST * N_FLIP, PruningTables::twistFlipNext);
+        if (full) {
+            ok &= check("corners", N_CPERM * N_TWIST, PruningTables::cornersNext);
+        } else {
+            ok &= check("cperm", N_CPERM, PruningTables::cpermNext);
+        }
+
+        if (ok)
+            System.out.println("[SELFTEST] mod-3 tables match the full tables.");
+        else
+            System.out.println("[SELFTEST] mod-3 tables have ERRORS.");
+
+        ok &= checkCache();
+        return ok;
+    }
+
+
+    // A saved table must read back as itself, and never as another table,
+    // layout or a headerless file of the right size
+    private static boolean checkCache() {
+        File dir = null;
+        try {
+            dir = Files.createTempDirectory("rubikscube-tables").toFile();
+            File f = new File(dir, "twist.prun");
+
+            NibbleTable twistTable = bfs(new NibbleTable(N_TWIST), PruningTables::twistNext);
+            save(f, "twist", twistTable);
+
+            boolean ok = true;
+            NibbleTable back = new NibbleTable(N_TWIST);
+            if (read(f, "twist", back) != null || !Arrays.equals(back.data, twistTable.data)) {
+                System.out.println("[FAIL] cache: saved table does not read back");
+                ok = false;
+            }
+            if (read(f, "flip", new NibbleTable(N_TWIST)) == null
+                    || read(f, "twist", new Mod3Table(N_TWIST)) == null) {
+                System.out.println("[FAIL] cache: table accepted under the wrong name or layout");
+                ok = false;
+            }
+
+            // the pre-header format: raw data only, same size as the table
+            try (OutputStream out = new FileOutputStream(f)) {
+                out.write(twistTable.data);
+            }
+            NibbleTable raw = new NibbleTable(N_TWIST);
+            if (read(f, "twist", raw) == null || raw.get(5) != raw.empty()) {
+                System.out.println("[FAIL] cache: headerless file accepted");
+                ok = false;
+            }
+
+            if (ok) System.out.println("[SELFTEST] cache files round-trip and reject stale data.");
+            return ok;
+        } catch (IOException e) {
+            System.out.println("[FAIL] cache: " + e.getMessage());
+            return false;
+        } finally {
+            if (dir != null) {
+                for (File x : dir.listFiles()) x.delete();
+                dir.delete();
+            }
+        }
+    }
+
+
+    private static boolean check(String name, int size, IntBinaryOperator next) {
+        NibbleTable nib = bfs(new NibbleTable(size), next);
+        Mod3Table mod3 = bfs(new Mod3Table(size), next);
+
+        for (int x = 0; x < size; x++) {
+            if (mod3.get(x) != nib.get(x) % 3 || mod3.distance(x, next) != nib.get(x)) {
+                System.out.println("[FAIL] " + name + ": entry " + x + " should be " + nib.get(x));
+                return false;
+            }
+        }
+
+        Random rnd = new Random(225);
+        for (int trial = 0; trial < 10000; trial++) {
+            int x = 0;
+            int d = 0;
+            for (int k = 0; k < 30; k++) {
+                x = next.applyAsInt(x, rnd.nextInt(18));
+                d = mod3.step(d, x);
+                if (d != nib.get(x)) {
+                    System.out.println("[FAIL] " + name + ": step to " + x + " gave " + d);
+                    return false;
+                }
+            }
+        }
+
+        System.out.printf("[SELFTEST] %s: %d entries, %d KB as 4-bit, %d KB as mod-3%n",
+                          name, size, nib.data.length / 1024, mod3.data.length / 1024);
+        return true;
+    }
+
+
+    public static void main(String[] args) {
+        selfTest(args.length > 0 && args[0].equals("--full"));
+    }
+}
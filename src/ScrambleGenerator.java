@@ -0,0 +1,165 @@
+package rubikscube;
+
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Generates scramble nets for load testing, in the 9x12 layout that
+ * StickerCube.fromFile and ScrambleReader read.
+ *
+ * Two kinds of workload:
+ *
+ *   random  – uniformly random legal states: random corner and edge
+ *             permutations with matching parity, random twist and flip
+ *             with the last cubie fixing the sums (orientationConstraintOK)
+ *
+ *   walk    – random move sequences of exact length, never turning the
+ *             same face twice in a row and only one order of two opposite
+ *             faces (U D but not D U), so no sequence trivially cancels
+ *
+ * Usage:
+ *
+ *   ScrambleGenerator random <count> <seed> [out]
+ *   ScrambleGenerator walk <depth> <count> <seed> [out]
+ *
+ * out is a file to stream all nets into, "-" (default) for stdout, or a
+ * directory (ending in '/') to write one scrambleNNNN.txt per cube.
+ * The same seed always gives the same cubes.
+ */
+public class ScrambleGenerator {
+
+
+    // Colors of U R F D L B, the scheme used in testcases/
+    private static final String COLORS = "OBWRGY";
+
+
+    private final Random rnd;
+
+
+    public ScrambleGenerator(long seed) {
+        this.rnd = new Random(seed);
+    }
+
+
+    /** Uniformly random solvable cube */
+    public CubieCube randomState() {
+        CubieCube c = new CubieCube();
+
+        shuffle(c.cp);
+        shuffle(c.ep);
+
+        // Corner and edge parity must agree; swapping two edges fixes it
+        // without biasing the distribution
+        if (!c.parityOK()) {
+            int t = c.ep[0]; c.ep[0] = c.ep[1]; c.ep[1] = t;
+        }
+
+        int twist = 0;
+        for (int i = 0; i < 7; i++) {
+            c.co[i] = rnd.nextInt(3);
+            twist += c.co[i];
+        }
+        c.co[7] = (3 - twist % 3) % 3;
+
+        int flip = 0;
+        for (int i = 0; i < 11; i++) {
+            c.eo[i] = rnd.nextInt(2);
+            flip ^= c.eo[i];
+        }
+        c.eo[11] = flip;
+
+        return c;
+    }
+
+
+    /** Random move sequence of exactly depth moves (see class comment) */
+    public int[] randomWalk(int depth) {
+        int[] moves = new int[depth];
+        int last = -1;
+        for (int i = 0; i < depth; i++) {
+            int m;
+            do {
+                m = rnd.nextInt(18);
+            } while (last != -1 && (m / 3 == last / 3 || m / 3 == last / 3 - 3));
+            moves[i] = m;
+            last = m;
+        }
+        return moves;
+    }
+
+
+    /** Solved cube with the moves applied */
+    public static CubieCube apply(int[] moves) {
+        CubieCube c = new CubieCube();
+        for (int m : moves) c.applyMove(m);
+        return c;
+    }
+
+
+    public static String toNet(CubieCube c) {
+        return StickerCube.fromFacelets(StickerCube.facelets(c), COLORS).toNet();
+    }
+
+
+    private void shuffle(int[] p) {
+        for (int i = p.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int t = p[i]; p[i] = p[j]; p[j] = t;
+        }
+    }
+
+
+
+    // Command line
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || !(args[0].equals("random") || args[0].equals("walk"))) {
+            System.err.println("usage: ScrambleGenerator random <count> <seed> [out]");
+            System.err.println("       ScrambleGenerator walk <depth> <count> <seed> [out]");
+            return;
+        }
+
+        boolean walk = args[0].equals("walk");
+        int a = walk ? 2 : 1;
+        if (walk && args.length < 4) {
+            System.err.println("walk needs <depth> <count> <seed>");
+            return;
+        }
+
+        int depth = walk ? Integer.parseInt(args[1]) : 0;
+        int count = Integer.parseInt(args[a]);
+        ScrambleGenerator gen = new ScrambleGenerator(Long.parseLong(args[a + 1]));
+        String out = args.length > a + 2 ? args[a + 2] : "-";
+
+
+        // one file per cube
+        if (out.endsWith("/")) {
+            new File(out).mkdirs();
+            for (int i = 1; i <= count; i++) {
+                CubieCube c = walk ? apply(gen.randomWalk(depth)) : gen.randomState();
+                String name = String.format("%sscramble%04d.txt", out, i);
+                try (Writer w = new BufferedWriter(new FileWriter(name))) {
+                    w.write(toNet(c));
+                }
+            }
+            return;
+        }
+
+
+        // all cubes streamed into one file or stdout
+        Writer w = out.equals("-")
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : new BufferedWriter(new FileWriter(out));
+        try {
+            for (int i = 0; i < count; i++) {
+                CubieCube c = walk ? apply(gen.randomWalk(depth)) : gen.randomState();
+                w.write(toNet(c));
+            }
+        } finally {
+            if (out.equals("-")) w.flush();
+            else w.close();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package rubikscube;
+
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Streams many 9x12 scramble nets (the same layout StickerCube.fromFile
+ * reads) out of one file or stdin and turns each straight into a
+ * CubieCube. Nets are simply concatenated; blank lines between them are
+ * skipped.
+ *
+ * Bytes go from a buffered channel into one reusable 54-byte facelet
+ * array, and cubies are identified with StickerCube's color lookup
+ * tables. Cubes that cannot be solved (twisted corner, flipped edge,
+ * parity) are rejected here instead of being handed to the search.
+ *
+ * Usage:
+ *
+ *   try (ScrambleReader in = ScrambleReader.open(file)) {
+ *       CubieCube c;
+ *       while ((c = in.next()) != null) { ... }
+ *   }
+ *
+ * An invalid net makes next() throw IllegalStateException after the
+ * whole net was consumed, so the caller can report it and keep reading.
+ */
+public class ScrambleReader implements Closeable {
+
+
+    private static final int ROWS = 9;
+    private static final int COLS = 12;
+
+
+    // Net position (row * COLS + col) of each facelet in URFDLB order
+    private static final int[] NET_INDEX = new int[54];
+
+    static {
+        // top-left corner of each face in the net, in URFDLB order
+        int[][] origin = {
+            {0, 3}, // U
+            {3, 6}, // R
+            {3, 3}, // F
+            {6, 3}, // D
+            {3, 0}, // L
+            {3, 9}  // B
+        };
+        for (int f = 0; f < 6; f++)
+            for (int r = 0; r < 3; r++)
+                for (int c = 0; c < 3; c++)
+                    NET_INDEX[f * 9 + r * 3 + c] =
+                        (origin[f][0] + r) * COLS + origin[f][1] + c;
+    }
+
+
+    private final ReadableByteChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+    private boolean eof = false;
+
+
+    private final byte[] net = new byte[ROWS * COLS];
+    private final byte[] facelets = new byte[54];
+    private final byte[] colorFace = new byte[256];
+
+    private int count = 0;
+
+
+    public ScrambleReader(ReadableByteChannel ch) {
+        this.ch = ch;
+        buf.flip();   // start empty
+        Arrays.fill(colorFace, (byte) -1);
+    }
+
+
+    public static ScrambleReader open(String fileName) throws IOException {
+        if (fileName.equals("-")) return stdin();
+        return new ScrambleReader(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ));
+    }
+
+
+    public static ScrambleReader stdin() {
+        return new ScrambleReader(Channels.newChannel(System.in));
+    }
+
+
+    /** Number of nets read so far, valid or not */
+    public int count() { return count; }
+
+
+    /**
+     * Next cube, or null at end of input. Throws IllegalStateException for
+     * a net that is complete but does not describe a solvable cube.
+     */
+    public CubieCube next() throws IOException {
+        // skip blank lines between nets
+        int len;
+        do {
+            len = readLine(0);
+            if (len < 0) return null;
+        } while (len == 0);
+
+        count++;
+        for (int r = 1; r < ROWS; r++) {
+            if (readLine(r) < 0) {
+                throw new IOException("Not enough lines in net #" + count);
+            }
+        }
+
+        try {
+            toFacelets();
+            CubieCube cc = StickerCube.toCubieCube(facelets);
+            cc.checkSolvable();
+            return cc;
+        } catch (IllegalStateException e) {
+            throw new IllegalStateException("Net #" + count + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Facelets of the last net next() read, as face indices. Only
+     * meaningful right after next() returned a cube; a rejected net
+     * overwrites them too.
+     */
+    public byte[] lastFacelets() {
+        return facelets.clone();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+
+
+    // Map colors to face indices via the six centers, straight out of the net
+    private void toFacelets() {
+        for (int f = 0; f < 6; f++) {
+            int center = net[NET_INDEX[f * 9 + 4]] & 0xff;
+            if (colorFace[center] >= 0) {
+                resetColors();
+                throw new IllegalStateException("Duplicate center color '" + (char) center + "'");
+            }
+            colorFace[center] = (byte) f;
+        }
+
+        for (int i = 0; i < 54; i++) {
+            int color = net[NET_INDEX[i]] & 0xff;
+            byte v = colorFace[color];
+            if (v < 0) {
+                resetColors();
+                throw new IllegalStateException("Color '" + (char) color
+                        + "' does not match any center");
+            }
+            facelets[i] = v;
+        }
+        resetColors();
+    }
+
+
+    private void resetColors() {
+        for (int f = 0; f < 6; f++)
+            colorFace[net[NET_INDEX[f * 9 + 4]] & 0xff] = -1;
+    }
+
+
+    /**
+     * Read one line into net row r, padded with spaces to COLS and with
+     * anything past COLS dropped. Returns the number of non-blank bytes,
+     * or -1 at end of input.
+     */
+    private int readLine(int r) throws IOException {
+        int base = r * COLS;
+        Arrays.fill(net, base, base + COLS, (byte) ' ');
+
+        int col = 0;
+        int nonBlank = 0;
+        boolean any = false;
+
+        while (true) {
+            if (!buf.hasRemaining() && !fill()) {
+                return any ? nonBlank : -1;
+            }
+            byte b = buf.get();
+            any = true;
+
+            if (b == '\n') return nonBlank;
+            if (b == '\r') continue;
+
+            if (col < COLS) net[base + col] = b;
+            col++;
+            if (b != ' ' && b != '\t') nonBlank++;
+        }
+    }
+
+
+    private boolean fill() throws IOException {
+        if (eof) return false;
+        buf.clear();
+        int n;
+        do {
+            n = ch.read(buf);
+        } while (n == 0);
+        buf.flip();
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+}
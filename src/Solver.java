@@ -4,6 +4,7 @@ package rubikscube;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class Solver {
@@ -53,7 +54,7 @@ public class Solver {
  * improves pruning and makes IDA* significantly faster on deeper scrambles.
  */
 
-private static int heuristic(CubieCube c) {
+static int heuristic(CubieCube c) {
     int h1 = 0;             // original: misplaced + misoriented
     int h2 = 0;             // corner "distance"
     int h3 = 0;             // edge "distance"
@@ -102,16 +103,96 @@ private static int heuristic(CubieCube c) {
 }
 
 
-   private static final int FOUND = -1;
+// heuristic above, plus whatever pruning tables up to the given tier
+// are ready (see PruningTables)
+static int heuristic(CubieCube c, int tier) {
+    return Math.max(heuristic(c), PruningTables.estimate(c, tier));
+}
+
+
+// Same three sums as heuristic(), scaled so that no single move can lower
+// any of them by more than 1, which makes this one truly admissible in the
+// 18-move metric (heuristic() is not: a half turn can lower H2 by 4).
+//
+//   H1: a quarter turn changes position and orientation of 4 corners and
+//       4 edges, so the count drops by at most 16
+//   H2: a half turn moves 4 corners diagonally across a face, 4 each: 16
+//   H3: any turn moves 4 edges by 2 each: 8
+//
+// Used where the search must not skip solutions (forEachSolution).
+
+static int admissibleHeuristic(CubieCube c) {
+    int h1 = 0, h2 = 0, h3 = 0;
+
+    for (int i = 0; i < 8; i++) {
+        if (c.cp[i] != i) h1++;
+        if (c.co[i] != 0) h1++;
+        h2 += manhattan(CubieCube.CORNER_POS[c.cp[i]], CubieCube.CORNER_POS[i]);
+    }
+    for (int i = 0; i < 12; i++) {
+        if (c.ep[i] != i) h1++;
+        if (c.eo[i] != 0) h1++;
+        h3 += manhattan(CubieCube.EDGE_POS[c.ep[i]], CubieCube.EDGE_POS[i]);
+    }
+
+    return Math.max((h1 + 15) / 16, Math.max((h2 + 15) / 16, (h3 + 7) / 8));
+}
+
+
+private static int manhattan(int[] a, int[] b) {
+    return Math.abs(a[0] - b[0]) + Math.abs(a[1] - b[1]) + Math.abs(a[2] - b[2]);
+}
+
+
+   static final int FOUND = -1;
+   static final int STOP = -2;
+   static final int CANCELLED = -3;
+
+
+    // Everything a dfsIda call needs besides the node. Fixed for a whole
+    // iteration so the bounds stay consistent.
+static final class Search {
+    final int tier;                    // pruning tables to use (PruningTables)
+    final boolean admissible;          // prune with admissibleHeuristic, not heuristic
+    final AtomicBoolean cancel;        // may be null; when set the search unwinds with CANCELLED
+    final Enumeration enumeration;     // null: stop at the first solution
+
+    Search(int tier, boolean admissible, AtomicBoolean cancel, Enumeration enumeration) {
+        this.tier = tier;
+        this.admissible = admissible;
+        this.cancel = cancel;
+        this.enumeration = enumeration;
+    }
+
+    Search(int tier, AtomicBoolean cancel) {
+        this(tier, false, cancel, null);
+    }
+
+    int estimate(CubieCube c, int dist) {
+        int h = admissible ? admissibleHeuristic(c) : heuristic(c);
+        return Math.max(h, PruningTables.estimate(c, tier, dist));
+    }
+}
+
 
     // Proper IDA* DFS
-private static int dfsIda(CubieCube cube,
-                          int g,
-                          int bound,
-                          int lastMove,
-                          List<Integer> path) {
+    // dist is the cube's exact mod-3 table distances (PruningTables.distances)
+    // Returns FOUND with the solution left in path, or the smallest f that
+    // exceeded the bound. When enumerating, every solution goes to the
+    // listener and the search goes on (STOP once the listener is done).
+static int dfsIda(CubieCube cube,
+                  int g,
+                  int bound,
+                  int lastMove,
+                  List<Integer> path,
+                  int dist,
+                  Search s) {
+
+    if (s.cancel != null && s.cancel.get()) {
+        return CANCELLED;
+    }
 
-    int h = heuristic(cube);
+    int h = s.estimate(cube, dist);
     int f = g + h;
 
     if (f > bound) {
@@ -119,10 +200,20 @@ private static int dfsIda(CubieCube cube,
     }
 
     if (cube.isSolved()) {
-        return FOUND;
+        Enumeration e = s.enumeration;
+        if (e == null) return FOUND;
+
+        // a sequence through solved is never reported or extended
+        if (g <= e.floor) return Integer.MAX_VALUE;
+
+        e.count++;
+        e.shortest = Math.min(e.shortest, g);
+        boolean more = e.listener.onSolution(Collections.unmodifiableList(new ArrayList<>(path)));
+        return (!more || e.count >= e.maxCount) ? STOP : FOUND;
     }
 
     int min = Integer.MAX_VALUE;
+    boolean found = false;
 
     for (int m : MOVE_LIST) {
 
@@ -133,26 +224,40 @@ private static int dfsIda(CubieCube cube,
         next.applyMove(m);
         path.add(m);
 
-        int t = dfsIda(next, g + 1, bound, m, path);
+        int t = dfsIda(next, g + 1, bound, m, path,
+                       PruningTables.distances(next, s.tier, dist), s);
 
-        if (t == FOUND) return FOUND;
-
-        if (t < min) min = t;
+        if (t == FOUND && s.enumeration == null) return FOUND;
+        if (t == STOP || t == CANCELLED) return t;
 
         path.remove(path.size() - 1);
+
+        if (t == FOUND) found = true;
+        else if (t < min) min = t;
     }
 
-    return min;
+    return found ? FOUND : min;
 }
 
+private static final AtomicBoolean firstSolveLogged = new AtomicBoolean();
+
 private static List<Integer> idaStar(CubieCube start) {
     List<Integer> path = new ArrayList<>();
-    int bound = heuristic(start);
+    int bound = heuristic(start, PruningTables.readyTier());
 
     while (true) {
-        int t = dfsIda(start, 0, bound, -1, path);
+        // switch to the strongest tables ready at the start of each iteration
+        int tier = PruningTables.readyTier();
+        bound = Math.max(bound, heuristic(start, tier));
+
+        int t = dfsIda(start, 0, bound, -1, path,
+                       PruningTables.distances(start, tier), new Search(tier, null));
 
         if (t == FOUND) {
+            if (firstSolveLogged.compareAndSet(false, true)) {
+                System.err.printf("[TIMING] first solve after %d ms (tier %d)%n",
+                                  PruningTables.millisSinceStart(), tier);
+            }
             return path;
         }
 
@@ -168,10 +273,170 @@ private static List<Integer> idaStar(CubieCube start) {
 }
 
 
+// Solution enumeration
+//
+// Same dfsIda as above, but instead of stopping at the first solution
+// every solution within the bound is handed to a listener as soon as it
+// is found. Pruning uses admissibleHeuristic, so the first solutions found
+// (length d) are the shortest and no longer one within a bound is missed.
+// The bound then goes up one at a time to d+extraDepth, and each of those
+// bounds only reports sequences longer than the previous bound so nothing
+// is reported twice.
+//
+// The listener runs on the search thread, so the search does not go on
+// until it returns (that is the backpressure); returning false stops it.
+
+public interface SolutionListener {
+    boolean onSolution(List<Integer> moves);
+}
+
+
+static final class Enumeration {
+    final SolutionListener listener;
+    final int maxCount;
+    int count = 0;
+    int floor = -1;                      // only report lengths above this
+    int shortest = Integer.MAX_VALUE;
+
+    Enumeration(SolutionListener listener, int maxCount) {
+        this.listener = listener;
+        this.maxCount = maxCount;
+    }
+}
+
+
+/**
+ * Report every solution of start with length up to shortest + extraDepth,
+ * shortest first, at most maxCount of them. A solution is a sequence with
+ * no face turned twice in a row that does not pass through solved on the
+ * way. Returns how many were reported.
+ */
+public static int forEachSolution(CubieCube start, int extraDepth, int maxCount,
+                                  SolutionListener listener) {
+    start.checkSolvable();
+    if (maxCount <= 0) return 0;
+
+    Enumeration e = new Enumeration(listener, maxCount);
+    List<Integer> path = new ArrayList<>();
+    int bound = 0;
+
+    while (true) {
+        int tier = PruningTables.readyTier();
+        int dist = PruningTables.distances(start, tier);
+        Search s = new Search(tier, true, null, e);
+        if (e.count == 0) bound = Math.max(bound, s.estimate(start, dist));
+
+        int t = dfsIda(start, 0, bound, -1, path, dist, s);
+
+        if (t == STOP) break;
+
+        if (e.count > 0) {
+            if (bound >= e.shortest + extraDepth) break;
+            e.floor = bound;
+            bound++;
+        } else {
+            if (t == Integer.MAX_VALUE) break;
+            bound = t;  // jump to next bound
+        }
+
+        if (bound > 35) break;
+    }
+
+    return e.count;
+}
+
+
+
+// Check forEachSolution against brute force: every sequence (same-face
+// rule, not passing through solved) up to shortest + extraDepth.
+
+public static boolean selfTest() {
+    boolean ok = true;
+    int extra = 2;
+
+    List<int[]> scrambles = new ArrayList<>();
+    for (String sc : new String[]{"U D R", "U R F D", "R2 U2 F2", "F' L B2"})
+        scrambles.add(StickerCube.parseMoves(sc));
+    ScrambleGenerator gen = new ScrambleGenerator(225);
+    for (int i = 0; i < 4; i++) scrambles.add(gen.randomWalk(3));
+
+    for (int[] sc : scrambles) {
+        CubieCube c = ScrambleGenerator.apply(sc);
+
+        List<String> expected = new ArrayList<>();
+        int shortest = -1;
+        for (int d = 0; shortest < 0; d++) {
+            List<String> found = new ArrayList<>();
+            bruteForce(new CubieCube(c), d, -1, new ArrayList<>(), found);
+            if (!found.isEmpty()) shortest = d;
+        }
+        bruteForce(new CubieCube(c), shortest + extra, -1, new ArrayList<>(), expected);
+
+        List<String> actual = new ArrayList<>();
+        forEachSolution(c, extra, Integer.MAX_VALUE, moves -> {
+            actual.add(moves.toString());
+            return true;
+        });
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+        if (!expected.equals(actual)) {
+            System.out.println("[FAIL] forEachSolution on " + Arrays.toString(sc) + ": expected "
+                    + expected.size() + " solutions, got " + actual.size());
+            ok = false;
+        }
+    }
+
+    if (ok)
+        System.out.println("[SELFTEST] forEachSolution matches brute force.");
+    else
+        System.out.println("[SELFTEST] forEachSolution has ERRORS.");
+
+    return ok;
+}
+
+
+// Every solution of c with at most depth moves, stopping at solved
+private static void bruteForce(CubieCube c, int depth, int lastMove,
+                               List<Integer> path, List<String> out) {
+    if (c.isSolved()) {
+        out.add(path.toString());
+        return;
+    }
+    if (depth == 0) return;
+
+    for (int m : MOVE_LIST) {
+        if (lastMove != -1 && (m / 3) == (lastMove / 3))
+            continue;
+
+        c.applyMove(m);
+        path.add(m);
+        bruteForce(c, depth - 1, m, path, out);
+        path.remove(path.size() - 1);
+        c.applyMove((m / 3) * 3 + 2 - m % 3);   // undo
+    }
+}
+
+
+
+/**
+ * Moves taking start to goal (start with the moves applied equals goal).
+ *
+ * Instead of a separate search towards goal, this solves the single cube
+ * goal^-1 * start to the solved cube: a sequence S solves it exactly when
+ * start * S == goal. The heuristic and the search are the normal ones.
+ */
+public static List<Integer> solve(CubieCube start, CubieCube goal) {
+    start.checkSolvable();
+    goal.checkSolvable();
+    return idaStar(goal.inverse().multiply(start));
+}
+
+
   
 //Expand our solution into expanded form 
 
-    private static List<String> expandMoves(List<Integer> sol) {
+    static List<String> expandMoves(List<Integer> sol) {
     List<String> out = new ArrayList<>();
 
     for (int m : sol) {
@@ -200,10 +465,119 @@ private static List<Integer> idaStar(CubieCube start) {
 }
 
 
+    // Batch mode: many concatenated nets from one file ("-" = stdin),
+    // one solution per line on stdout. A rejected net, or a solution that
+    // fails the sticker replay, gets an empty line so output lines stay
+    // aligned with input nets.
+
+    private static void solveAll(String inFile) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+
+        // flush in finally: a truncated net throws IOException, and the
+        // lines already written for earlier nets must still come out
+        try (ScrambleReader in = ScrambleReader.open(inFile)) {
+            while (true) {
+                CubieCube cc;
+                try {
+                    cc = in.next();
+                } catch (IllegalStateException e) {
+                    System.err.println("[REJECT] " + e.getMessage());
+                    out.println();
+                    continue;
+                }
+                if (cc == null) break;
+
+                String sol = String.join("", expandMoves(idaStar(cc)));
+
+                // replay on the net's own stickers before it goes downstream
+                byte[] f = in.lastFacelets();
+                StickerCube.applyMoves(f, StickerCube.parseMoves(sol));
+                if (!StickerCube.isSolved(f)) {
+                    System.err.println("[VERIFY] solution does not solve net #" + in.count());
+                    sol = "";
+                }
+
+                out.println(sol);
+                out.flush();
+            }
+        } finally {
+            out.flush();
+        }
+    }
+
+
+    /** Why the cube read from file cannot be solved, or null if it can */
+    static String rejectReason(String file, CubieCube c) {
+        try {
+            c.checkSolvable();
+            return null;
+        } catch (IllegalStateException e) {
+            return file + " is not a solvable cube: " + e.getMessage();
+        }
+    }
+
+
     //Main function 
 
    public static void main(String[] args) throws Exception {
 
+    // --worker <host> <port>: serve a coordinator until it says QUIT.
+    // Workers only load the tables the coordinator saves, so they do not
+    // all build their own copy at the same time
+    if (args.length >= 3 && args[0].equals("--worker")) {
+        PruningTables.startBackground(false);
+        DistributedSearch.worker(args[1], Integer.parseInt(args[2]));
+        return;
+    }
+
+    // the coordinator shares its tables with the workers through a directory
+    if (args.length >= 1 && args[0].equals("--coordinator")
+            && System.getProperty("rubikscube.tables") == null) {
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                "rubikscube-tables-v" + PruningTables.FORMAT);
+        System.setProperty("rubikscube.tables", dir.getPath());
+    }
+
+    // answer with the cheap heuristic now, stronger tables as they finish
+    PruningTables.startBackground();
+
+    if (args.length >= 1 && args[0].equals("--selftest")) {
+        selfTest();
+        return;
+    }
+
+    // --all <in> [extraDepth] [maxCount]: every solution, one per line
+    if (args.length >= 2 && args[0].equals("--all")) {
+        CubieCube cc = StickerCube.fromFile(args[1]).toCubieCube();
+        int extra = args.length >= 3 ? Integer.parseInt(args[2]) : 0;
+        int max = args.length >= 4 ? Integer.parseInt(args[3]) : Integer.MAX_VALUE;
+
+        forEachSolution(cc, extra, max, moves -> {
+            System.out.println(String.join("", expandMoves(moves)));
+            return true;
+        });
+        return;
+    }
+
+    // --coordinator <in> <out> <workers> [frontierDepth]: IDA* sharded
+    // across worker JVMs on this machine (see DistributedSearch)
+    if (args.length >= 4 && args[0].equals("--coordinator")) {
+        CubieCube cc = StickerCube.fromFile(args[1]).toCubieCube();
+        int workers = Integer.parseInt(args[3]);
+        int depth = args.length >= 5 ? Integer.parseInt(args[4]) : 3;
+
+        List<Integer> sol = DistributedSearch.solve(cc, workers, depth);
+        try (PrintWriter pw = new PrintWriter(args[2])) {
+            pw.print(String.join("", expandMoves(sol)));
+        }
+        return;
+    }
+
+    if (args.length >= 1 && args[0].equals("--batch")) {
+        solveAll(args.length >= 2 ? args[1] : "-");
+        return;
+    }
+
     if (args.length < 2) {
         return; 
     }
@@ -211,15 +585,36 @@ private static List<Integer> idaStar(CubieCube start) {
     String inFile = args[0];
     String outFile = args[1];
 
+    // optional third argument: a goal net to reach instead of solved
+    StickerCube goal = args.length >= 3 ? StickerCube.fromFile(args[2]) : null;
+    CubieCube gc = goal != null ? goal.toCubieCube() : new CubieCube();
+
     StickerCube sc = StickerCube.fromFile(inFile);
     CubieCube cc = sc.toCubieCube();
 
-    List<Integer> sol = idaStar(cc);
+    // an unsolvable cube would otherwise search all the way to bound 35
+    List<Integer> sol;
+    String reject = rejectReason(inFile, cc);
+    if (reject == null && goal != null) reject = rejectReason(args[2], gc);
+    if (reject == null) {
+        sol = solve(cc, gc);
+    } else {
+        System.err.println("[REJECT] " + reject);
+        sol = Collections.emptyList();
+    }
+    String out = String.join("", expandMoves(sol));
+
+    // replay the solution on the stickers before it goes anywhere
+    boolean ok = goal != null ? sc.verifySolution(out, goal) : sc.verifySolution(out);
+    if (reject == null && !ok) {
+        // never hand an unverified solution downstream
+        System.err.println("[VERIFY] solution does not solve " + inFile);
+        out = "";
+    }
 
     // write ONLY the solution, nothing else
     try (PrintWriter pw = new PrintWriter(outFile)) {
-        List<String> expanded = expandMoves(sol);
-        for (String s : expanded) pw.print(s);
+        pw.print(out);
     }
 }
 
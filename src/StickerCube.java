@@ -2,12 +2,18 @@ package rubikscube;
 
 
 import java.io.*;
+import java.util.*;
 
 
 /**
  * Reads the 9x12 scramble net and converts it into a CubieCube
- * (cp/co/ep/eo). This class does NOT do moves; it just loads the
- * correct layout from the testcase scramble files 
+ * (cp/co/ep/eo). Also the sticker-level side of the solver:
+ *
+ *   - a facelet move engine on flat 54-byte arrays (applyMove/applyMoves)
+ *   - verifySolution, which replays a move string on the stickers so a
+ *     solution is checked independently of the cubie model
+ *   - toNet, writing a cube back out in the same 9x12 layout
+ *   - selfTest, cross-checking every move against CubieCube
  *
  * Net layout (rows 0..8, cols 0..11):
  *
@@ -187,136 +193,406 @@ public class StickerCube {
     };
 
 
+    // Color lookup tables
+    //
+    // Colors are face indices (see toFacelets), so a corner's three
+    // stickers read in CORNER_FACELETS order form a key
+    // (a * 6 + b) * 6 + c, and an edge's two stickers form a * 6 + b.
+    // The tables give cubie * 3 + ori (corners) or cubie * 2 + flip
+    // (edges) directly, or -1 for a color combination no cubie has.
+
+    private static final byte[] CORNER_LOOKUP = new byte[6 * 6 * 6];
+    private static final byte[] EDGE_LOOKUP = new byte[6 * 6];
+
+    static {
+        Arrays.fill(CORNER_LOOKUP, (byte) -1);
+        Arrays.fill(EDGE_LOOKUP, (byte) -1);
+
+
+        // Orientation o means cols[(o + k) % 3] == CORNER_FACES[type][k]
+        for (int type = 0; type < 8; type++) {
+            for (int o = 0; o < 3; o++) {
+                int[] cols = new int[3];
+                for (int k = 0; k < 3; k++)
+                    cols[(o + k) % 3] = CORNER_FACES[type][k];
+                CORNER_LOOKUP[(cols[0] * 6 + cols[1]) * 6 + cols[2]] = (byte) (type * 3 + o);
+            }
+        }
+
+
+        for (int type = 0; type < 12; type++) {
+            int a = EDGE_FACES[type][0];
+            int b = EDGE_FACES[type][1];
+            EDGE_LOOKUP[a * 6 + b] = (byte) (type * 2);
+            EDGE_LOOKUP[b * 6 + a] = (byte) (type * 2 + 1);
+        }
+    }
+
+
     /**
      * Convert this sticker representation into a CubieCube.
      *We only use centers to represent the colors because they never change
      */
     public CubieCube toCubieCube() {
+        return toCubieCube(toFacelets());
+    }
+
+
+    /**
+     * Convert face-index facelets (URFDLB order) into a CubieCube with one
+     * table lookup per cubie. This only identifies the cubies; whether the
+     * result is reachable is left to CubieCube.checkSolvable().
+     */
+    public static CubieCube toCubieCube(byte[] f) {
         CubieCube cc = new CubieCube();
 
 
-        //  Center colors: which color is "U", "R", etc.
-        char[] fc = new char[6];
-        for (int f = 0; f < 6; f++) {
-            fc[f] = faces[f][1][1];
+        // Corners: identify type & orientation at each position
+        for (int pos = 0; pos < 8; pos++) {
+            int[] fl = CORNER_FACELETS[pos];
+            int v = CORNER_LOOKUP[(f[fl[0]] * 6 + f[fl[1]]) * 6 + f[fl[2]]];
+            if (v < 0) {
+                throw new IllegalStateException("Invalid corner colors at position " + pos);
+            }
+            cc.cp[pos] = v / 3;
+            cc.co[pos] = v % 3;
         }
 
 
-        //  Build a 54-length facelet array in URFDLB order
-        char[] facelets = new char[54];
-        for (int f = 0; f < 6; f++) {
-            int base = f * 9;
-            for (int r = 0; r < 3; r++) {
-                for (int c = 0; c < 3; c++) {
-                    facelets[base + r * 3 + c] = faces[f][r][c];
-                }
+        // Edges: identify type & flip at each position
+        for (int pos = 0; pos < 12; pos++) {
+            int[] fl = EDGE_FACELETS[pos];
+            int v = EDGE_LOOKUP[f[fl[0]] * 6 + f[fl[1]]];
+            if (v < 0) {
+                throw new IllegalStateException("Invalid edge colors at position " + pos);
             }
+            cc.ep[pos] = v >> 1;
+            cc.eo[pos] = v & 1;
         }
 
 
-        // 3) Define correct colors for each cubie type using centers
+        return cc;
+    }
+
+
+
+    // Facelet move engine
+    //
+    // Works on flat 54-byte arrays in the same URFDLB facelet order as
+    // above. Each byte is the face index whose center carries that color,
+    // so a solved cube is simply f[i] == i / 9. A move is one pass over a
+    // precomputed permutation: dst[i] = src[MOVE_PERM[m][i]].
+    //
+    // Move indices are the same 18-move metric as CubieCube.applyMove.
+
+
+    // Clockwise quarter turn of each face: the sticker at cycle[k]
+    // moves to cycle[k + 1]
+    private static final int[][][] FACE_CYCLES = {
+        // U
+        {{ 0,  2,  8,  6}, { 1,  5,  7,  3},
+         { 9, 18, 36, 45}, {10, 19, 37, 46}, {11, 20, 38, 47}},
+        // R
+        {{ 9, 11, 17, 15}, {10, 14, 16, 12},
+         { 2, 51, 29, 20}, { 5, 48, 32, 23}, { 8, 45, 35, 26}},
+        // F
+        {{18, 20, 26, 24}, {19, 23, 25, 21},
+         { 6,  9, 29, 44}, { 7, 12, 28, 41}, { 8, 15, 27, 38}},
+        // D
+        {{27, 29, 35, 33}, {28, 32, 34, 30},
+         {15, 51, 42, 24}, {16, 52, 43, 25}, {17, 53, 44, 26}},
+        // L
+        {{36, 38, 44, 42}, {37, 41, 43, 39},
+         { 0, 18, 27, 53}, { 3, 21, 30, 50}, { 6, 24, 33, 47}},
+        // B
+        {{45, 47, 53, 51}, {46, 50, 52, 48},
+         { 0, 42, 35, 11}, { 1, 39, 34, 14}, { 2, 36, 33, 17}}
+    };
+
 
-        char[][] cornerColor = new char[8][3];
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 3; j++) {
-                cornerColor[i][j] = fc[ CORNER_FACES[i][j] ];
+    private static final byte[][] MOVE_PERM = new byte[18][54];
+
+    static {
+        for (int face = 0; face < 6; face++) {
+            byte[] quarter = MOVE_PERM[face * 3];
+            for (int i = 0; i < 54; i++) quarter[i] = (byte) i;
+            for (int[] cyc : FACE_CYCLES[face]) {
+                for (int k = 0; k < 4; k++) {
+                    quarter[cyc[(k + 1) % 4]] = (byte) cyc[k];
+                }
+            }
+
+            // Half and inverse turns are the quarter turn composed with itself
+            for (int t = 1; t < 3; t++) {
+                byte[] prev = MOVE_PERM[face * 3 + t - 1];
+                byte[] cur  = MOVE_PERM[face * 3 + t];
+                for (int i = 0; i < 54; i++) cur[i] = prev[quarter[i]];
             }
         }
+    }
+
+
+    /** Facelets of the solved cube */
+    public static byte[] solvedFacelets() {
+        byte[] f = new byte[54];
+        for (int i = 0; i < 54; i++) f[i] = (byte) (i / 9);
+        return f;
+    }
 
 
-        char[][] edgeColor = new char[12][2];
-        for (int i = 0; i < 12; i++) {
-            edgeColor[i][0] = fc[ EDGE_FACES[i][0] ];
-            edgeColor[i][1] = fc[ EDGE_FACES[i][1] ];
+    /** dst = src after move m. src and dst must be different arrays. */
+    public static void applyMove(byte[] src, int m, byte[] dst) {
+        if (m < 0 || m >= 18) {
+            throw new IllegalArgumentException("Bad move index " + m);
         }
+        byte[] p = MOVE_PERM[m];
+        for (int i = 0; i < 54; i++) dst[i] = src[p[i]];
+    }
 
 
-        // 4) Corners: identify type & orientation at each position
-        for (int pos = 0; pos < 8; pos++) {
-            char c0 = facelets[ CORNER_FACELETS[pos][0] ];
-            char c1 = facelets[ CORNER_FACELETS[pos][1] ];
-            char c2 = facelets[ CORNER_FACELETS[pos][2] ];
-            char[] cols = {c0, c1, c2};
+    /** Apply a move sequence to f in place */
+    public static void applyMoves(byte[] f, int[] moves) {
+        byte[] a = f;
+        byte[] b = new byte[54];
+        for (int m : moves) {
+            applyMove(a, m, b);
+            byte[] t = a; a = b; b = t;
+        }
+        if (a != f) System.arraycopy(a, 0, f, 0, 54);
+    }
+
 
+    /** Facelets of the solved cube after the given scramble */
+    public static byte[] scrambled(int[] moves) {
+        byte[] f = solvedFacelets();
+        applyMoves(f, moves);
+        return f;
+    }
 
-            int foundType = -1;
-            int ori = -1;
 
+    /** Every sticker matches the center of its face */
+    public static boolean isSolved(byte[] f) {
+        for (int face = 0; face < 6; face++) {
+            int base = face * 9;
+            byte center = f[base + 4];
+            for (int i = 0; i < 9; i++)
+                if (f[base + i] != center) return false;
+        }
+        return true;
+    }
 
-            outer:
-            for (int type = 0; type < 8; type++) {
-                char[] ref = cornerColor[type];
 
+    /**
+     * Parse a move string into move indices. Accepts the expanded form
+     * the solver writes ("URUUURRR", one quarter turn per letter) as well
+     * as the usual "R2" / "R'" suffixes. Whitespace is ignored.
+     */
+    public static int[] parseMoves(String s) {
+        int[] out = new int[s.length()];
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (Character.isWhitespace(ch)) continue;
+
+            int face = "URFDLB".indexOf(ch);
+            if (face < 0) {
+                throw new IllegalArgumentException("Bad move '" + ch + "' at " + i);
+            }
 
-                // Try orientations ori = 0,1,2 such that
-                // cols[(ori + k) % 3] == ref[k] for all k
-                for (int o = 0; o < 3; o++) {
-                    boolean match = true;
-                    for (int k = 0; k < 3; k++) {
-                        if (cols[(o + k) % 3] != ref[k]) {
-                            match = false;
-                            break;
-                        }
-                    }
-                    if (match) {
-                        foundType = type;
-                        ori = o;
-                        break outer;
+            int type = 0;
+            if (i + 1 < s.length()) {
+                char next = s.charAt(i + 1);
+                if (next == '2')       { type = 1; i++; }
+                else if (next == '\'') { type = 2; i++; }
+            }
+            out[n++] = face * 3 + type;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+
+    /**
+     * Facelets of this cube with colors replaced by face indices
+     * (the face whose center has that color).
+     */
+    public byte[] toFacelets() {
+        byte[] colorFace = new byte[128];
+        Arrays.fill(colorFace, (byte) -1);
+        for (int f = 0; f < 6; f++) {
+            char center = faces[f][1][1];
+            if (colorFace[center & 127] >= 0) {
+                throw new IllegalStateException("Duplicate center color '" + center + "'");
+            }
+            colorFace[center & 127] = (byte) f;
+        }
+
+        byte[] out = new byte[54];
+        for (int f = 0; f < 6; f++) {
+            for (int r = 0; r < 3; r++) {
+                for (int c = 0; c < 3; c++) {
+                    byte v = colorFace[faces[f][r][c] & 127];
+                    if (v < 0) {
+                        throw new IllegalStateException("Color '" + faces[f][r][c]
+                                + "' does not match any center");
                     }
+                    out[f * 9 + r * 3 + c] = v;
                 }
             }
+        }
+        return out;
+    }
 
 
-            if (foundType == -1) {
-                throw new IllegalStateException("Invalid corner colors at position " + pos);
-            }
+    /** True if applying the move string to this cube solves it */
+    public boolean verifySolution(String sol) {
+        byte[] f = toFacelets();
+        applyMoves(f, parseMoves(sol));
+        return isSolved(f);
+    }
+
+
+    /** True if applying the move string to this cube gives the goal's stickers */
+    public boolean verifySolution(String sol, StickerCube goal) {
+        byte[] f = toFacelets();
+        applyMoves(f, parseMoves(sol));
+        return Arrays.equals(f, goal.toFacelets());
+    }
 
 
-            cc.cp[pos] = foundType;
-            cc.co[pos] = ori % 3;
+    /** Build a StickerCube from face-index facelets, using "URFDLB" as colors */
+    static StickerCube fromFacelets(byte[] f) {
+        return fromFacelets(f, "URFDLB");
+    }
+
+
+    /** Build a StickerCube from face-index facelets; colors[face] is the color of that face */
+    public static StickerCube fromFacelets(byte[] f, String colors) {
+        StickerCube sc = new StickerCube();
+        for (int i = 0; i < 54; i++) {
+            sc.faces[i / 9][(i % 9) / 3][i % 3] = colors.charAt(f[i]);
         }
+        return sc;
+    }
 
 
-        // Edges: identify type & flip at each position
-        
+    /** Face-index facelets of a CubieCube (the reverse of toCubieCube) */
+    public static byte[] facelets(CubieCube cc) {
+        byte[] f = new byte[54];
+        for (int face = 0; face < 6; face++) f[face * 9 + 4] = (byte) face;
+
+        for (int pos = 0; pos < 8; pos++) {
+            int type = cc.cp[pos];
+            int ori = cc.co[pos];
+            for (int k = 0; k < 3; k++)
+                f[CORNER_FACELETS[pos][(ori + k) % 3]] = (byte) CORNER_FACES[type][k];
+        }
+
         for (int pos = 0; pos < 12; pos++) {
-            char c0 = facelets[ EDGE_FACELETS[pos][0] ];
-            char c1 = facelets[ EDGE_FACELETS[pos][1] ];
+            int type = cc.ep[pos];
+            int flip = cc.eo[pos];
+            for (int k = 0; k < 2; k++)
+                f[EDGE_FACELETS[pos][(flip + k) % 2]] = (byte) EDGE_FACES[type][k];
+        }
+        return f;
+    }
+
 
+    /** The 9x12 net, in the same layout fromFile reads (rows end in '\n') */
+    public String toNet() {
+        StringBuilder sb = new StringBuilder(9 * 13);
 
-            int foundType = -1;
-            int flip = 0;
+        for (int r = 0; r < 3; r++) {
+            sb.append("   ").append(faces[U][r]).append('\n');
+        }
+        for (int r = 0; r < 3; r++) {
+            sb.append(faces[L][r]).append(faces[F][r])
+              .append(faces[R][r]).append(faces[B][r]).append('\n');
+        }
+        for (int r = 0; r < 3; r++) {
+            sb.append("   ").append(faces[D][r]).append('\n');
+        }
+        return sb.toString();
+    }
 
 
-            for (int type = 0; type < 12; type++) {
-                char a0 = edgeColor[type][0];
-                char a1 = edgeColor[type][1];
 
+    // Cross-check against CubieCube
+    //
+    // Applies the same moves to both representations and converts the
+    // facelets back through toCubieCube. Any disagreement means one of the
+    // move definitions has drifted.
 
-                if (c0 == a0 && c1 == a1) {
-                    foundType = type;
-                    flip = 0;
-                    break;
-                } else if (c0 == a1 && c1 == a0) {
-                    foundType = type;
-                    flip = 1;
-                    break;
-                }
+    public static boolean selfTest() {
+        boolean ok = true;
+        String[] names = {"U","U2","U'","R","R2","R'","F","F2","F'",
+                          "D","D2","D'","L","L2","L'","B","B2","B'"};
+
+
+        // Single moves from solved
+        for (int m = 0; m < 18; m++) {
+            CubieCube cc = new CubieCube();
+            cc.applyMove(m);
+            byte[] f = scrambled(new int[]{m});
+
+            if (!cc.equals(fromFacelets(f).toCubieCube())) {
+                System.out.println("[FAIL] " + names[m] + " differs from CubieCube");
+                ok = false;
             }
+        }
 
 
-            if (foundType == -1) {
-                throw new IllegalStateException("Invalid edge colors at position " + pos);
+        // Random sequences, and the inverse sequence must bring both back
+        Random rnd = new Random(225);
+        for (int trial = 0; trial < 1000 && ok; trial++) {
+            int[] moves = new int[1 + rnd.nextInt(30)];
+            CubieCube cc = new CubieCube();
+            for (int i = 0; i < moves.length; i++) {
+                moves[i] = rnd.nextInt(18);
+                cc.applyMove(moves[i]);
             }
+            byte[] f = scrambled(moves);
 
+            if (!cc.equals(fromFacelets(f).toCubieCube())) {
+                System.out.println("[FAIL] random sequence " + Arrays.toString(moves));
+                ok = false;
+            }
 
-            cc.ep[pos] = foundType;
-            cc.eo[pos] = flip;
+            int[] inv = new int[moves.length];
+            for (int i = 0; i < moves.length; i++) {
+                int m = moves[moves.length - 1 - i];
+                inv[i] = (m / 3) * 3 + (2 - m % 3);
+            }
+            applyMoves(f, inv);
+            if (!isSolved(f)) {
+                System.out.println("[FAIL] inverse sequence did not solve");
+                ok = false;
+            }
         }
 
 
-        return cc;
+        // Throughput
+        int[] moves = new int[1 << 16];
+        for (int i = 0; i < moves.length; i++) moves[i] = rnd.nextInt(18);
+        byte[] f = solvedFacelets();
+        long t0 = System.nanoTime();
+        for (int rep = 0; rep < 64; rep++) applyMoves(f, moves);
+        long ns = System.nanoTime() - t0;
+        System.out.printf("[SELFTEST] facelet engine: %.1f M moves/sec%n",
+                          64.0 * moves.length * 1000.0 / ns);
+
+
+        if (ok)
+            System.out.println("[SELFTEST] StickerCube facelet moves match CubieCube.");
+        else
+            System.out.println("[SELFTEST] StickerCube facelet moves DISAGREE with CubieCube.");
+
+
+        return ok;
     }
-}
 
+    //Used for debug
 
+    public static void main(String[] args) {
+        selfTest();
+    }
+}